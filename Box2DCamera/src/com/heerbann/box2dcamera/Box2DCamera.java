@@ -1,5 +1,6 @@
 package com.heerbann.box2dcamera;
 
+import java.util.Arrays;
 import java.util.Comparator;
 
 import com.badlogic.gdx.Gdx;
@@ -9,18 +10,24 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.math.Matrix4;
 import com.badlogic.gdx.math.Rectangle;
 import com.badlogic.gdx.math.Vector2;
 import com.badlogic.gdx.physics.box2d.Box2DDebugRenderer;
+import com.badlogic.gdx.physics.box2d.Filter;
 import com.badlogic.gdx.physics.box2d.Fixture;
 import com.badlogic.gdx.physics.box2d.QueryCallback;
 import com.badlogic.gdx.physics.box2d.World;
 import com.badlogic.gdx.scenes.scene2d.utils.ScissorStack;
 import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.IntArray;
+import com.badlogic.gdx.utils.Sort;
+import com.badlogic.gdx.utils.async.AsyncTask;
 import com.badlogic.gdx.utils.viewport.ScreenViewport;
 
 /**
- * Creates a new Box2DCamera. A Box2DCamera queries a Box2D {@link World} for bodies with a {@link Body#getUserData()} containing a class implementing {@link RenderItem}
+ * Creates a new Box2DCamera. A Box2DCamera queries a Box2D {@link World} or all worlds of a {@link WorldGroup} for bodies with a {@link Body#getUserData()} containing a class implementing {@link RenderItem}
  * All Objects not implementing the interface or null will be silently ignored.<br>
  * @author Heerbann<info@heerbann.com>
  */
@@ -63,7 +70,43 @@ public class Box2DCamera extends InputAdapter{
 		public void setId(long id);
 	}
 	
-	private final World world;
+	/**
+	 * Optional extension of {@link RenderItem} used by the occlusion culling. See {@link Box2DCamera#setOcclusionCulling(boolean)}.
+	 * All rectangles are in the coordinates of the camera (the same coordinates the item is drawn in).
+	 */
+	public interface CullableRenderItem extends RenderItem{
+		/**
+		 * @param bounds the rectangle to write the area this item draws into
+		 * @return bounds
+		 */
+		public Rectangle getBounds(Rectangle bounds);
+		/**
+		 * @param occluder the rectangle to write the fully opaque area of this item into
+		 * @return false if this item doesn't hide anything behind it
+		 */
+		public boolean getOccluder(Rectangle occluder);
+	}
+	
+	/**
+	 * Optional extension of {@link RenderItem} to assign the item to a render layer. See {@link Box2DCamera#setIncludeLayers(int)}.
+	 * Items not implementing this interface are on layer 0.
+	 */
+	public interface LayeredRenderItem extends RenderItem{
+		/** The render layer of this item. must be between 0 and 31, items on other layers are never drawn when filtering by layers */
+		public int getLayer();
+	}
+	
+	/**
+	 * Optional extension of {@link RenderItem} for items drawing a single {@link TextureRegion}. See {@link RenderItemPacker}.
+	 */
+	public interface TexturedRenderItem extends RenderItem{
+		/** @return the region drawn by this item */
+		public TextureRegion getRegion();
+		/** Replaces the region drawn by this item. Called by {@link RenderItemPacker} with the packed region */
+		public void setRegion(TextureRegion region);
+	}
+	
+	private final WorldGroup worlds;
 	private final SpriteBatch batch;
 	private final InteractiveViewport viewport;
 	private final float unitsPerPixel;
@@ -80,7 +123,22 @@ public class Box2DCamera extends InputAdapter{
 	 * @param unitsPerPixel how many pixels equals 1 unit in the box2d world. 
 	 */
 	public Box2DCamera(World world, SpriteBatch batch, int screenX, int screenY, int screenWidth, int screenHeight, float unitsPerPixel){
-		this.world = world;
+		this(toGroup(world), batch, screenX, screenY, screenWidth, screenHeight, unitsPerPixel);
+	}
+	
+	/**
+	 * Creates a new Box2DCamera drawing all worlds of a {@link WorldGroup}. The worlds are queried in parallel and their items merged into one z-sorted cache.<br>
+	 * All Objects not implementing the interface or null will be silently ignored.<br>
+	 * @param worlds The {@link WorldGroup}. It can be shared among multiple cameras.
+	 * @param batch the {@link SpriteBatch}. If more than one Box2DCamera exists the batch should be shared.
+	 * @param screenX the x lower left corner of the viewport in screen coordinates
+	 * @param screenY the y lower left corner of the viewport in screen coordinates
+	 * @param screenWidth the width of the viewport in screen coordinates
+	 * @param screenHeight the height of the viewport in screen coordinates
+	 * @param unitsPerPixel how many pixels equals 1 unit in the box2d world. 
+	 */
+	public Box2DCamera(WorldGroup worlds, SpriteBatch batch, int screenX, int screenY, int screenWidth, int screenHeight, float unitsPerPixel){
+		this.worlds = worlds;
 		this.batch = batch;
 		this.viewport = new InteractiveViewport(new OrthographicCamera());
 		this.viewport.setScreenBounds(screenX, screenY, screenWidth, screenHeight);
@@ -113,6 +171,36 @@ public class Box2DCamera extends InputAdapter{
 		this(world, batch, 0, 0, Gdx.graphics.getWidth(), Gdx.graphics.getHeight(), unitsPerPixel);
 	}
 	
+	/**
+	 * Creates a new Box2DCamera drawing all worlds of a {@link WorldGroup}. The worlds are queried in parallel and their items merged into one z-sorted cache.<br>
+	 * All Objects not implementing the interface or null will be silently ignored.<br>
+	 * @param worlds The {@link WorldGroup}. It can be shared among multiple cameras.
+	 * @param batch the {@link SpriteBatch}. If more than one Box2DCamera exists the batch should be shared.
+	 * @param screenWidth the width of the viewport in screen coordinates
+	 * @param screenHeight the height of the viewport in screen coordinates
+	 * @param unitsPerPixel how many pixels equals 1 unit in the box2d world. 
+	 */
+	public Box2DCamera(WorldGroup worlds, SpriteBatch batch, int screenWidth, int screenHeight, float unitsPerPixel){
+		this(worlds, batch, 0, 0, screenWidth, screenHeight, unitsPerPixel);
+	}
+	
+	/**
+	 * Creates a new Box2DCamera drawing all worlds of a {@link WorldGroup}. The worlds are queried in parallel and their items merged into one z-sorted cache.<br>
+	 * All Objects not implementing the interface or null will be silently ignored.<br>
+	 * @param worlds The {@link WorldGroup}. It can be shared among multiple cameras.
+	 * @param batch the {@link SpriteBatch}. If more than one Box2DCamera exists the batch should be shared.
+	 * @param unitsPerPixel how many pixels equals 1 unit in the box2d world. 
+	 */
+	public Box2DCamera(WorldGroup worlds, SpriteBatch batch, float unitsPerPixel){
+		this(worlds, batch, 0, 0, Gdx.graphics.getWidth(), Gdx.graphics.getHeight(), unitsPerPixel);
+	}
+	
+	private static WorldGroup toGroup(World world){
+		WorldGroup group = new WorldGroup(1);
+		group.add(world, 0, 0);
+		return group;
+	}
+	
 	
 	private void updateScissors(){
 		scissors.set(viewport.getScreenX(), viewport.getScreenY(), viewport.getScreenWidth(), viewport.getScreenHeight());
@@ -204,6 +292,13 @@ public class Box2DCamera extends InputAdapter{
 		return (OrthographicCamera) viewport.getCamera();
 	}
 	
+	/**
+	 * @return the {@link WorldGroup} drawn by this {@link Box2DCamera}
+	 */
+	public WorldGroup getWorldGroup(){
+		return worlds;
+	}
+	
 	/**
 	 * Warning: don't call this when sharing one batch among multiple cameras!!
 	 */
@@ -230,24 +325,137 @@ public class Box2DCamera extends InputAdapter{
 	}
 	
 	private final RenderItemSort comperator = new RenderItemSort();
-	private final QueryCallback callback = new QueryCallback(){
+	
+	/**
+	 * Queries and sorts the items of one world of the {@link WorldGroup}. Runs on the thread pool of the group if there is more than one world.
+	 */
+	private class WorldQuery implements QueryCallback, AsyncTask<Void>{
+		
+		private final int index;
+		private final Array<RenderItem> items = new Array<RenderItem>(true, 16, RenderItem.class);
+		private final Sort sort = new Sort();
+		private float x1, y1, x2, y2;
+		private int head;
+		
+		public WorldQuery(int index){
+			this.index = index;
+		}
+		
+		public void set(float x1, float y1, float x2, float y2){
+			this.x1 = x1;
+			this.y1 = y1;
+			this.x2 = x2;
+			this.y2 = y2;
+		}
+		
+		@Override
+		public Void call() throws Exception {
+			items.clear();
+			head = 0;
+			worlds.getWorld(index).QueryAABB(this, x1, y1, x2, y2);
+			if(items.size > 1) sort.sort(items.items, comperator, 0, items.size);
+			return null;
+		}
 
 		@Override
 		public boolean reportFixture(Fixture fixture) {
+			if(filterCategories){
+				short categoryBits = fixture.getFilterData().categoryBits;
+				if((categoryBits & includeCategories) == 0 || (categoryBits & excludeCategories) != 0) return true;
+			}
 			Object o = fixture.getBody().getUserData();
 			if(o == null) return true;
 			if(!RenderItem.class.isAssignableFrom(o.getClass())) return true;
 			RenderItem r = (RenderItem) o;
+			if(filterLayers){
+				int layer = (o instanceof LayeredRenderItem)?((LayeredRenderItem) o).getLayer():0;
+				//1 << layer only uses the lowest 5 bits of layer
+				if(layer < 0 || layer > 31) return true;
+				int layerBit = 1 << layer;
+				if((layerBit & includeLayers) == 0 || (layerBit & excludeLayers) != 0) return true;
+			}
 			if(r.getId() == Gdx.graphics.getFrameId()) return true;
 			r.setId(Gdx.graphics.getFrameId());
-			renderCache.add(r);
+			items.add(r);
 			return true;
 		}
 		
-	};
+	}
+	
+	private final Array<WorldQuery> queries = new Array<WorldQuery>();
+	
+	private short includeCategories = (short) 0xFFFF, excludeCategories = 0;
+	private int includeLayers = 0xFFFFFFFF, excludeLayers = 0;
+	private boolean filterCategories = false, filterLayers = false;
+	
+	/**
+	 * @return the {@link Filter#categoryBits} a fixture needs at least one of to be drawn by this camera. default = 0xFFFF
+	 */
+	public short getIncludeCategories() {
+		return includeCategories;
+	}
+
+	/**
+	 * @param includeCategories the {@link Filter#categoryBits} a fixture needs at least one of to be drawn by this camera. default = 0xFFFF
+	 */
+	public void setIncludeCategories(short includeCategories) {
+		this.includeCategories = includeCategories;
+		updateFilters();
+	}
+
+	/**
+	 * @return the {@link Filter#categoryBits} of fixtures never drawn by this camera. default = 0
+	 */
+	public short getExcludeCategories() {
+		return excludeCategories;
+	}
+
+	/**
+	 * @param excludeCategories the {@link Filter#categoryBits} of fixtures never drawn by this camera. default = 0
+	 */
+	public void setExcludeCategories(short excludeCategories) {
+		this.excludeCategories = excludeCategories;
+		updateFilters();
+	}
+
+	/**
+	 * @return the bitmask of the layers (bit n = layer n) drawn by this camera. See {@link LayeredRenderItem}. default = all
+	 */
+	public int getIncludeLayers() {
+		return includeLayers;
+	}
+
+	/**
+	 * @param includeLayers the bitmask of the layers (bit n = layer n) drawn by this camera. See {@link LayeredRenderItem}. default = all
+	 */
+	public void setIncludeLayers(int includeLayers) {
+		this.includeLayers = includeLayers;
+		updateFilters();
+	}
+
+	/**
+	 * @return the bitmask of the layers (bit n = layer n) never drawn by this camera. See {@link LayeredRenderItem}. default = 0
+	 */
+	public int getExcludeLayers() {
+		return excludeLayers;
+	}
+
+	/**
+	 * @param excludeLayers the bitmask of the layers (bit n = layer n) never drawn by this camera. See {@link LayeredRenderItem}. default = 0
+	 */
+	public void setExcludeLayers(int excludeLayers) {
+		this.excludeLayers = excludeLayers;
+		updateFilters();
+	}
+	
+	private void updateFilters(){
+		filterCategories = includeCategories != (short) 0xFFFF || excludeCategories != 0;
+		filterLayers = includeLayers != 0xFFFFFFFF || excludeLayers != 0;
+	}
 	
 	private void rebuildCache(){
 		renderCache.clear();
+		renderWorlds.clear();
 		OrthographicCamera camera = (OrthographicCamera) viewport.getCamera(); 
 		float width = (camera.viewportWidth*camera.zoom) / 2 * 1.1f;
 		float height = (camera.viewportHeight*camera.zoom) / 2 * 1.1f;
@@ -255,36 +463,237 @@ public class Box2DCamera extends InputAdapter{
 		float y1 = (camera.position.y - height) * unitsPerPixel;
 		float x2 = (camera.position.x + width) * unitsPerPixel;
 		float y2 = (camera.position.y + height) * unitsPerPixel;
-		world.QueryAABB(callback, x1, y1, x2, y2);
-		if(renderCache.size > 0) renderCache.sort(comperator);
+		while(queries.size < worlds.size()) queries.add(new WorldQuery(queries.size));
+		for(int i = 0; i < queries.size; i++){
+			Vector2 offset = worlds.getOffset(i);
+			queries.get(i).set(x1 - offset.x, y1 - offset.y, x2 - offset.x, y2 - offset.y);
+		}
+		worlds.invokeAll(queries);
+		mergeQueries();
+		culledItems = 0;
+		if(occlusionCulling && renderCache.size > 1) cullOccluded(camera.position.x - width, camera.position.y - height, 2*width, 2*height);
+	}
+	
+	/**
+	 * Merges the sorted items of all worlds into the cache, keeping the z-order.
+	 */
+	private void mergeQueries(){
+		int total = 0;
+		for(int i = 0; i < queries.size; i++)
+			total += queries.get(i).items.size;
+		renderCache.ensureCapacity(total);
+		renderWorlds.ensureCapacity(total);
+		for(int n = 0; n < total; n++){
+			int best = -1, bestZ = 0;
+			for(int i = 0; i < queries.size; i++){
+				WorldQuery q = queries.get(i);
+				if(q.head == q.items.size) continue;
+				int z = q.items.get(q.head).getZ();
+				if(best == -1 || z < bestZ){
+					best = i;
+					bestZ = z;
+				}
+			}
+			WorldQuery q = queries.get(best);
+			renderCache.add(q.items.get(q.head++));
+			renderWorlds.add(best);
+		}
+		for(int i = 0; i < queries.size; i++)
+			queries.get(i).items.clear();
+	}
+	
+	private boolean occlusionCulling = false;
+	private int occlusionGridSize = 32;
+	private boolean[] occlusionGrid = new boolean[occlusionGridSize*occlusionGridSize];
+	private final Rectangle cullRect = new Rectangle();
+	private int culledItems = 0;
+	
+	/**
+	 * Removes all {@link CullableRenderItem} from the sorted cache whose bounds are completely hidden behind the occluders of items with a higher z.
+	 * The area of the camera is divided into a coarse grid and a cell only counts as covered if an occluder covers it completely.
+	 * Items with the same z never cull each other.
+	 */
+	private void cullOccluded(float x, float y, float width, float height){
+		final int n = occlusionGridSize;
+		final float cellWidth = width / n, cellHeight = height / n;
+		Arrays.fill(occlusionGrid, false);
+		boolean covered = false;
+		int i = renderCache.size - 1;
+		while(i >= 0){
+			int z = renderCache.get(i).getZ();
+			int j = i;
+			for(; j >= 0 && renderCache.get(j).getZ() == z; j--){
+				RenderItem r = renderCache.get(j);
+				if(!covered || !(r instanceof CullableRenderItem)) continue;
+				((CullableRenderItem) r).getBounds(cullRect);
+				Vector2 offset = worlds.getOffset(renderWorlds.get(j));
+				cullRect.x += offset.x / unitsPerPixel;
+				cullRect.y += offset.y / unitsPerPixel;
+				int cx1 = toCell((cullRect.x - x) / cellWidth, n), cx2 = toCell((cullRect.x + cullRect.width - x) / cellWidth, n);
+				int cy1 = toCell((cullRect.y - y) / cellHeight, n), cy2 = toCell((cullRect.y + cullRect.height - y) / cellHeight, n);
+				if(!isCovered(cx1, cy1, cx2, cy2)) continue;
+				r.setId(0);
+				renderCache.set(j, null);
+				culledItems++;
+			}
+			for(int k = i; k > j; k--){
+				RenderItem r = renderCache.get(k);
+				if(r == null || !(r instanceof CullableRenderItem)) continue;
+				if(!((CullableRenderItem) r).getOccluder(cullRect)) continue;
+				Vector2 offset = worlds.getOffset(renderWorlds.get(k));
+				cullRect.x += offset.x / unitsPerPixel;
+				cullRect.y += offset.y / unitsPerPixel;
+				//only cells lying completely inside the occluder are marked
+				int cx1 = Math.max(0, (int)Math.ceil((cullRect.x - x) / cellWidth)), cx2 = Math.min(n-1, (int)Math.floor((cullRect.x + cullRect.width - x) / cellWidth) - 1);
+				int cy1 = Math.max(0, (int)Math.ceil((cullRect.y - y) / cellHeight)), cy2 = Math.min(n-1, (int)Math.floor((cullRect.y + cullRect.height - y) / cellHeight) - 1);
+				for(int cy = cy1; cy <= cy2; cy++)
+					for(int cx = cx1; cx <= cx2; cx++)
+						occlusionGrid[cy*n + cx] = true;
+				covered |= cx1 <= cx2 && cy1 <= cy2;
+			}
+			i = j;
+		}
+		if(culledItems == 0) return;
+		int size = 0;
+		for(int k = 0; k < renderCache.size; k++){
+			RenderItem r = renderCache.get(k);
+			if(r == null) continue;
+			renderCache.set(size, r);
+			renderWorlds.set(size++, renderWorlds.get(k));
+		}
+		renderCache.truncate(size);
+		renderWorlds.truncate(size);
+	}
+	
+	private int toCell(float cell, int n){
+		return (cell < 0)?0:(cell >= n)?n-1:(int)cell;
+	}
+	
+	private boolean isCovered(int cx1, int cy1, int cx2, int cy2){
+		for(int cy = cy1; cy <= cy2; cy++)
+			for(int cx = cx1; cx <= cx2; cx++)
+				if(!occlusionGrid[cy*occlusionGridSize + cx]) return false;
+		return true;
+	}
+	
+	/**
+	 * @return if items hidden behind the occluders of {@link CullableRenderItem} are removed from the cache. default = false
+	 */
+	public boolean isOcclusionCulling() {
+		return occlusionCulling;
+	}
+
+	/**
+	 * If true {@link CullableRenderItem} completely hidden behind the occluders of items with a higher z are removed from the cache and never drawn. default = false
+	 */
+	public void setOcclusionCulling(boolean occlusionCulling) {
+		this.occlusionCulling = occlusionCulling;
+	}
+	
+	/**
+	 * @return the number of cells per axis of the grid used for the occlusion culling. default = 32
+	 */
+	public int getOcclusionGridSize() {
+		return occlusionGridSize;
+	}
+
+	/**
+	 * @param occlusionGridSize the number of cells per axis of the grid used for the occlusion culling. finer grids cull more but cost more. default = 32
+	 */
+	public void setOcclusionGridSize(int occlusionGridSize) {
+		if(occlusionGridSize < 1) throw new IllegalArgumentException("occlusionGridSize must be >= 1");
+		this.occlusionGridSize = occlusionGridSize;
+		this.occlusionGrid = new boolean[occlusionGridSize*occlusionGridSize];
+	}
+	
+	/**
+	 * @return the number of items removed by the occlusion culling in the last {@link #update()}
+	 */
+	public int getCulledItems() {
+		return culledItems;
 	}
 	
 	private final Array<RenderItem> renderCache = new Array<RenderItem>();
+	/** The index in the {@link WorldGroup} of the world each item of the cache belongs to */
+	private final IntArray renderWorlds = new IntArray();
+	private final Matrix4 savedTransform = new Matrix4(), worldTransform = new Matrix4();
 	
 	/**
 	 * Renders the cache and draws the debug lines if isDebug == true
 	 */
 	public void render(){
+		renderCalls = 0;
+		transformFlushes = 0;
 		if(renderCache.size == 0) return;
+		boolean hasOffsets = worlds.hasOffsets();
+		if(hasOffsets) savedTransform.set(batch.getTransformMatrix());
 		batch.setProjectionMatrix(viewport.getCamera().combined);
 		batch.begin();
+		//the batch starts with the saved transform, which equals an offset of 0
+		float appliedX = 0, appliedY = 0;
 		for(int i = 0; i < renderCache.size; i++){
-			RenderItem r = renderCache.get(i);		
+			RenderItem r = renderCache.get(i);
+			//the transform only changes (and flushes) when the next item is from a world with another offset
+			if(hasOffsets){
+				Vector2 offset = worlds.getOffset(renderWorlds.get(i));
+				if(offset.x != appliedX || offset.y != appliedY){
+					appliedX = offset.x;
+					appliedY = offset.y;
+					int flushes = batch.renderCalls;
+					batch.setTransformMatrix(worldTransform.set(savedTransform).translate(offset.x / unitsPerPixel, offset.y / unitsPerPixel, 0));
+					transformFlushes += batch.renderCalls - flushes;
+				}
+			}
 			r.render(batch, Gdx.graphics.getDeltaTime());
 			r.setId(0);
 		}
 		batch.end();
+		renderCalls = batch.renderCalls;
+		if(hasOffsets) batch.setTransformMatrix(savedTransform);
 		if(isDebug){
 			OrthographicCamera c = (OrthographicCamera) viewport.getCamera();
-			debugCamera.position.set(c.position).scl(unitsPerPixel);
 			debugCamera.viewportWidth = c.viewportWidth * unitsPerPixel;
 			debugCamera.viewportHeight = c.viewportHeight * unitsPerPixel;
 			debugCamera.zoom = c.zoom;
-			debugCamera.update();
-			debugRenderer.render(world, debugCamera.combined);
+			for(int i = 0; i < worlds.size(); i++){
+				Vector2 offset = worlds.getOffset(i);
+				debugCamera.position.set(c.position).scl(unitsPerPixel).sub(offset.x, offset.y, 0);
+				debugCamera.update();
+				debugRenderer.render(worlds.getWorld(i), debugCamera.combined);
+			}
 		}
 	}
 	
+	private int renderCalls = 0, transformFlushes = 0;
+	
+	/**
+	 * @return the number of draw calls (batch flushes) of the last {@link #render()}. This includes the flushes caused by switching between worlds with an offset, see {@link #getTransformFlushes()}
+	 */
+	public int getRenderCalls() {
+		return renderCalls;
+	}
+	
+	/**
+	 * @return the number of batch flushes of the last {@link #render()} caused by switching to an item of a world with a different offset than the previous item
+	 */
+	public int getTransformFlushes() {
+		return transformFlushes;
+	}
+	
+	/**
+	 * @return the number of draw calls of the last {@link #render()} not caused by switching between worlds, which are mostly texture switches. This is the number packing with {@link RenderItemPacker} brings down
+	 */
+	public int getTextureRenderCalls() {
+		return renderCalls - transformFlushes;
+	}
+	
+	/**
+	 * @return the sorted cache of the last {@link #update()}
+	 */
+	Array<RenderItem> getRenderCache() {
+		return renderCache;
+	}
+	
 	/**
 	 * @return the colour used to clear the background of this {@link Box2DCamera}
 	 */
@@ -0,0 +1,246 @@
+package com.heerbann.box2dcamera;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Pixmap.Blending;
+import com.badlogic.gdx.graphics.Pixmap.Format;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.Texture.TextureFilter;
+import com.badlogic.gdx.graphics.TextureData;
+import com.badlogic.gdx.graphics.g2d.PixmapPacker;
+import com.badlogic.gdx.graphics.g2d.PixmapPacker.Page;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas;
+import com.badlogic.gdx.graphics.g2d.TextureAtlas.AtlasRegion;
+import com.badlogic.gdx.graphics.g2d.TextureRegion;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.ObjectMap;
+import com.heerbann.box2dcamera.Box2DCamera.RenderItem;
+import com.heerbann.box2dcamera.Box2DCamera.TexturedRenderItem;
+
+/**
+ * Packs the regions of registered {@link TexturedRenderItem} into shared atlas pages with a {@link PixmapPacker} and gives the packed regions back to the items.
+ * Since the items then share a few textures, {@link Box2DCamera#render()} no longer flushes the batch for every item.
+ * Can be used at load time or at runtime: every call to {@link #pack()} only packs the items registered since the last call.<br>
+ * The textures of the items need to be backed by a file or a {@link Pixmap}. The original textures are not disposed.<br>
+ * The pages are sampled with the filters of the packer, not with the filters of the original textures. A warning is logged for every texture with other filters.
+ */
+public class RenderItemPacker implements Disposable{
+
+	private final PixmapPacker packer;
+	private final TextureFilter minFilter, magFilter;
+	private final Array<TexturedRenderItem> pending = new Array<TexturedRenderItem>();
+	private final Array<String> pendingNames = new Array<String>();
+	private final ObjectMap<Texture, Array<PackedRegion>> packed = new ObjectMap<Texture, Array<PackedRegion>>();
+	private final ObjectMap<Texture, Pixmap> sources = new ObjectMap<Texture, Pixmap>();
+	private final ObjectMap<String, AtlasRegion> atlasRegions = new ObjectMap<String, AtlasRegion>();
+	private TextureAtlas atlas;
+	private int indexedRegions = 0;
+	private int regionCount = 0;
+
+	/**
+	 * Creates a new RenderItemPacker with 1024x1024 pages, 2 pixels padding and linear filtering.
+	 */
+	public RenderItemPacker(){
+		this(1024, 1024, 2, TextureFilter.Linear, TextureFilter.Linear);
+	}
+
+	/**
+	 * Creates a new RenderItemPacker.
+	 * @param pageWidth the width of a page in pixels
+	 * @param pageHeight the height of a page in pixels
+	 * @param padding the padding between the regions in pixels
+	 * @param minFilter the {@link TextureFilter} of the pages
+	 * @param magFilter the {@link TextureFilter} of the pages
+	 */
+	public RenderItemPacker(int pageWidth, int pageHeight, int padding, TextureFilter minFilter, TextureFilter magFilter){
+		this.packer = new PixmapPacker(pageWidth, pageHeight, Format.RGBA8888, padding, padding > 0);
+		this.minFilter = minFilter;
+		this.magFilter = magFilter;
+	}
+
+	/**
+	 * Registers an item to be packed with the next call of {@link #pack()}. Items sharing the same region are packed only once.
+	 * After packing the item is drawn with the filters of this packer instead of the ones of its own texture.
+	 */
+	public void register(TexturedRenderItem item){
+		pending.add(item);
+	}
+
+	/**
+	 * Packs the regions of all items registered since the last call and replaces the regions of these items with the packed ones.
+	 * The packed regions use the filters of this packer, a warning is logged for every texture using other filters.
+	 * Has to be called on the rendering thread.
+	 * @return the number of newly packed regions
+	 */
+	public int pack(){
+		if(pending.size == 0) return 0;
+		int newRegions = 0;
+		pendingNames.clear();
+		int i = 0;
+		boolean packedAll = false;
+		try {
+			for(; i < pending.size; i++){
+				TextureRegion region = pending.get(i).getRegion();
+				Texture texture = region.getTexture();
+				if(isPage(texture)){
+					//already packed
+					pendingNames.add(null);
+					continue;
+				}
+				//the coordinates of flipped regions are mirrored, so the unflipped ones are read from the uvs
+				int x = Math.round(Math.min(region.getU(), region.getU2()) * texture.getWidth());
+				int y = Math.round(Math.min(region.getV(), region.getV2()) * texture.getHeight());
+				int width = region.getRegionWidth(), height = region.getRegionHeight();
+				String name = findPacked(texture, x, y, width, height);
+				if(name == null){
+					name = packRegion(texture, x, y, width, height);
+					newRegions++;
+				}
+				pendingNames.add(name);
+			}
+			packedAll = true;
+		} finally {
+			disposeSources();
+			if(!packedAll){
+				//drop the failing item so the next call doesn't fail on it again, the others stay registered
+				pending.removeIndex(i);
+				pendingNames.clear();
+			}
+		}
+		if(atlas == null) atlas = packer.generateTextureAtlas(minFilter, magFilter, false);
+		else packer.updateTextureAtlas(atlas, minFilter, magFilter, false);
+		//regions are only ever appended to the atlas
+		Array<AtlasRegion> regions = atlas.getRegions();
+		for(; indexedRegions < regions.size; indexedRegions++)
+			atlasRegions.put(regions.get(indexedRegions).name, regions.get(indexedRegions));
+		for(i = 0; i < pending.size; i++){
+			if(pendingNames.get(i) == null) continue;
+			TexturedRenderItem item = pending.get(i);
+			TextureRegion old = item.getRegion();
+			TextureRegion region = new TextureRegion(atlasRegions.get(pendingNames.get(i)));
+			region.flip(old.isFlipX(), old.isFlipY());
+			item.setRegion(region);
+		}
+		pending.clear();
+		pendingNames.clear();
+		return newRegions;
+	}
+
+	private boolean isPage(Texture texture){
+		Array<Page> pages = packer.getPages();
+		for(int i = 0; i < pages.size; i++)
+			if(pages.get(i).getTexture() == texture) return true;
+		return false;
+	}
+
+	private String findPacked(Texture texture, int x, int y, int width, int height){
+		Array<PackedRegion> regions = packed.get(texture);
+		if(regions == null) return null;
+		for(int i = 0; i < regions.size; i++)
+			if(regions.get(i).matches(x, y, width, height)) return regions.get(i).name;
+		return null;
+	}
+
+	private String packRegion(Texture texture, int x, int y, int width, int height){
+		Pixmap source = getSource(texture);
+		Pixmap pixmap = new Pixmap(width, height, source.getFormat());
+		try {
+			pixmap.setBlending(Blending.None);
+			pixmap.drawPixmap(source, 0, 0, x, y, width, height);
+			String name = "region" + regionCount++;
+			packer.pack(name, pixmap);
+			Array<PackedRegion> regions = packed.get(texture);
+			if(regions == null) packed.put(texture, regions = new Array<PackedRegion>());
+			regions.add(new PackedRegion(name, x, y, width, height));
+			return name;
+		} finally {
+			pixmap.dispose();
+		}
+	}
+
+	private Pixmap getSource(Texture texture){
+		Pixmap source = sources.get(texture);
+		if(source != null) return source;
+		TextureData data = texture.getTextureData();
+		try {
+			if(!data.isPrepared()) data.prepare();
+			source = data.consumePixmap();
+		} catch (GdxRuntimeException e) {
+			throw new GdxRuntimeException("Texture can't be packed, it is not backed by a file or a Pixmap", e);
+		}
+		//new Texture(pixmap) followed by pixmap.dispose() keeps the disposed pixmap
+		if(source == null || source.isDisposed()) throw new GdxRuntimeException("Texture can't be packed, it is not backed by a file or a Pixmap");
+		if(texture.getMinFilter() != minFilter || texture.getMagFilter() != magFilter)
+			Gdx.app.log("RenderItemPacker", "Texture uses the filters " + texture.getMinFilter() + "/" + texture.getMagFilter() + ", the packed regions are drawn with " + minFilter + "/" + magFilter);
+		sources.put(texture, source);
+		return source;
+	}
+
+	private void disposeSources(){
+		for(ObjectMap.Entry<Texture, Pixmap> e : sources.entries())
+			if(e.key.getTextureData().disposePixmap()) e.value.dispose();
+		sources.clear();
+	}
+
+	/**
+	 * @return the atlas holding the packed regions or null if nothing was packed yet
+	 */
+	public TextureAtlas getAtlas(){
+		return atlas;
+	}
+
+	/**
+	 * Counts how often the texture changes while drawing the current cache of the camera. Only {@link TexturedRenderItem} are counted.
+	 * Compare the result before and after {@link #pack()} (after the next {@link Box2DCamera#update()}) to see the effect of the packing.
+	 * See also {@link Box2DCamera#getTextureRenderCalls()}.
+	 * @return the number of texture switches
+	 */
+	public static int countTextureSwitches(Box2DCamera camera){
+		Array<RenderItem> cache = camera.getRenderCache();
+		Texture current = null;
+		int switches = 0;
+		for(int i = 0; i < cache.size; i++){
+			RenderItem r = cache.get(i);
+			if(!(r instanceof TexturedRenderItem)) continue;
+			Texture texture = ((TexturedRenderItem) r).getRegion().getTexture();
+			if(texture == current) continue;
+			current = texture;
+			switches++;
+		}
+		return switches;
+	}
+
+	/**
+	 * Disposes the packer and the atlas. The regions of the packed items are invalid afterwards.
+	 */
+	@Override
+	public void dispose(){
+		disposeSources();
+		packer.dispose();
+		if(atlas != null) atlas.dispose();
+		atlas = null;
+		atlasRegions.clear();
+		indexedRegions = 0;
+	}
+
+	private static class PackedRegion{
+
+		private final String name;
+		private final int x, y, width, height;
+
+		public PackedRegion(String name, int x, int y, int width, int height){
+			this.name = name;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+
+		public boolean matches(int x, int y, int width, int height){
+			return this.x == x && this.y == y && this.width == width && this.height == height;
+		}
+
+	}
+}
@@ -0,0 +1,169 @@
+package com.heerbann.box2dcamera;
+
+import com.badlogic.gdx.math.Vector2;
+import com.badlogic.gdx.physics.box2d.World;
+import com.badlogic.gdx.utils.Array;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+import com.badlogic.gdx.utils.async.AsyncExecutor;
+import com.badlogic.gdx.utils.async.AsyncResult;
+import com.badlogic.gdx.utils.async.AsyncTask;
+
+/**
+ * A set of independent Box2D {@link World}s drawn together by one or more {@link Box2DCamera}. Each world has its own offset in world coordinates.
+ * Since the native worlds don't share any state they are stepped and queried in parallel on a thread pool.<br>
+ * Remember that the listeners of a world ({@link com.badlogic.gdx.physics.box2d.ContactListener} etc.) are called on the thread stepping it.
+ */
+public class WorldGroup implements Disposable{
+
+	private final Array<World> worlds = new Array<World>();
+	private final Array<Vector2> offsets = new Array<Vector2>();
+	private final Array<StepTask> stepTasks = new Array<StepTask>();
+	private final Array<AsyncResult<Void>> results = new Array<AsyncResult<Void>>();
+	private final int threads;
+	private AsyncExecutor executor;
+
+	/**
+	 * Creates a new WorldGroup using as many threads (including the calling thread) as there are processors.
+	 */
+	public WorldGroup(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a new WorldGroup.
+	 * @param threads the max number of worlds stepped or queried at the same time. The calling thread counts as one of them, the pool gets threads - 1
+	 */
+	public WorldGroup(int threads){
+		if(threads < 1) throw new IllegalArgumentException("threads must be >= 1");
+		this.threads = threads;
+	}
+
+	/**
+	 * Adds a world to the group. Don't add worlds while a {@link Box2DCamera} is updating.
+	 * @param world the {@link World}
+	 * @param offsetX the x offset of the world in world coordinates
+	 * @param offsetY the y offset of the world in world coordinates
+	 */
+	public void add(World world, float offsetX, float offsetY){
+		worlds.add(world);
+		offsets.add(new Vector2(offsetX, offsetY));
+		stepTasks.add(new StepTask(world));
+	}
+
+	/**
+	 * @return the number of worlds in this group
+	 */
+	public int size(){
+		return worlds.size;
+	}
+
+	/**
+	 * @return the world at the given index
+	 */
+	public World getWorld(int index){
+		return worlds.get(index);
+	}
+
+	/**
+	 * @return the offset in world coordinates of the world at the given index. can be modified
+	 */
+	public Vector2 getOffset(int index){
+		return offsets.get(index);
+	}
+
+	/**
+	 * @return true if any world of this group has an offset != 0
+	 */
+	public boolean hasOffsets(){
+		for(int i = 0; i < offsets.size; i++)
+			if(!offsets.get(i).isZero()) return true;
+		return false;
+	}
+
+	/**
+	 * Steps all worlds in parallel and waits until all of them are done. See {@link World#step(float, int, int)}
+	 */
+	public void step(float timeStep, int velocityIterations, int positionIterations){
+		for(int i = 0; i < stepTasks.size; i++)
+			stepTasks.get(i).set(timeStep, velocityIterations, positionIterations);
+		invokeAll(stepTasks);
+	}
+
+	/**
+	 * Runs all tasks in parallel and waits until all of them are done, even if one of them fails. The last task runs on the calling thread.
+	 * The first error is rethrown after all tasks are done.
+	 */
+	void invokeAll(Array<? extends AsyncTask<Void>> tasks){
+		if(tasks.size == 0) return;
+		if(tasks.size == 1 || threads == 1){
+			for(int i = 0; i < tasks.size; i++)
+				call(tasks.get(i));
+			return;
+		}
+		if(executor == null) executor = new AsyncExecutor(threads - 1);
+		results.clear();
+		RuntimeException error = null;
+		try {
+			for(int i = 0; i < tasks.size - 1; i++)
+				results.add(executor.submit(tasks.get(i)));
+			call(tasks.peek());
+		} catch (RuntimeException e) {
+			error = e;
+		} finally {
+			//never leave a task running, the next call would submit it again
+			for(int i = 0; i < results.size; i++){
+				try {
+					results.get(i).get();
+				} catch (RuntimeException e) {
+					if(error == null) error = e;
+				}
+			}
+			results.clear();
+		}
+		if(error != null) throw error;
+	}
+
+	private void call(AsyncTask<Void> task){
+		try {
+			task.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new GdxRuntimeException(e);
+		}
+	}
+
+	/**
+	 * Shuts down the thread pool. The worlds are not disposed.
+	 */
+	@Override
+	public void dispose(){
+		if(executor != null) executor.dispose();
+		executor = null;
+	}
+
+	private static class StepTask implements AsyncTask<Void>{
+
+		private final World world;
+		private float timeStep;
+		private int velocityIterations, positionIterations;
+
+		public StepTask(World world){
+			this.world = world;
+		}
+
+		public void set(float timeStep, int velocityIterations, int positionIterations){
+			this.timeStep = timeStep;
+			this.velocityIterations = velocityIterations;
+			this.positionIterations = positionIterations;
+		}
+
+		@Override
+		public Void call() throws Exception {
+			world.step(timeStep, velocityIterations, positionIterations);
+			return null;
+		}
+
+	}
+}